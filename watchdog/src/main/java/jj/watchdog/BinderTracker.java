@@ -0,0 +1,326 @@
+package jj.watchdog;
+
+import android.os.Binder;
+import android.os.Build;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+/**
+ * author: JJLeong
+ * detail: Binder调用追踪 - 记录被监控线程发起的binder调用的开始时间和耗时
+ *
+ * 10.0以上通过反射 Binder#setProxyTransactListener 注册监听，每次binder调用开始、结束都会在调用线程回调。
+ * 10.0以下或者反射失败（hidden api限制）则什么都不做。
+ * 每个被监控线程有一个预先分配好的环形缓冲区（Recorder），只保存最近的binder调用，记录过程中不会分配内存。
+ * 同一个线程（同一个Looper上的多个Handler）共用一个Recorder，按引用计数注销。
+ * 消息逾期、线程阻塞报警时，取出这段时间内的binder调用，就能知道卡顿里边有多少时间是在等IPC。
+ *
+ * 注意：Binder#setProxyTransactListener 整个进程只有一个，注册的时候会覆盖掉其他组件设置的listener。
+ * 所以只在有Recorder的时候才注册，最后一个Recorder注销之后就设回null（被覆盖的listener不会恢复）。
+ */
+public final class BinderTracker {
+    private static final int DEFAULT_CAPACITY = 32;
+    private static final int MAX_NESTED_DEPTH = 8;
+    static final BinderCall[] EMPTY = new BinderCall[0];
+
+    private static volatile Recorder[] sRecorders = new Recorder[0];
+    private static volatile WatchDogClock sClock = WatchDogClock.SYSTEM;
+    private static boolean isSupported = false;
+    private static boolean isInstallTried = false;
+    private static Method sSetListenerMethod;
+    private static Object sListener;
+
+    private BinderTracker() {}
+
+    /**
+     * 反射准备好 Binder#setProxyTransactListener（真正注册在第一个Recorder的时候），只会尝试一次
+     * @return 是否支持
+     */
+    static synchronized boolean install(WatchDogClock clock) {
+        sClock = clock;
+        if (isInstallTried) {
+            return isSupported;
+        }
+        isInstallTried = true;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return false;
+        }
+        try {
+            Class<?> listenerClass = Class.forName("android.os.Binder$ProxyTransactListener");
+            sListener = Proxy.newProxyInstance(listenerClass.getClassLoader(),
+                    new Class<?>[]{listenerClass}, new TransactHandler());
+            sSetListenerMethod = Binder.class.getDeclaredMethod("setProxyTransactListener", listenerClass);
+            sSetListenerMethod.setAccessible(true);
+            isSupported = true;
+        } catch (Throwable e) {
+            isSupported = false;
+        }
+        return isSupported;
+    }
+
+    /**
+     * 当前系统是否支持binder追踪
+     */
+    public static synchronized boolean isSupported() {
+        return isSupported;
+    }
+
+    /**
+     * 设置进程唯一的ProxyTransactListener，传null就是清除
+     */
+    private static boolean setListener(Object listener) {
+        try {
+            sSetListenerMethod.invoke(null, listener);
+            return true;
+        } catch (Throwable e) {
+            isSupported = false;
+            return false;
+        }
+    }
+
+    /**
+     * 注册线程，第一个线程注册时才设置ProxyTransactListener
+     * 同一个线程注册多次返回同一个Recorder，每次register都要对应一次unregister
+     * @return 线程的Recorder，不支持或者设置失败返回null
+     */
+    static synchronized Recorder register(Thread thread) {
+        if (!isSupported) {
+            return null;
+        }
+        Recorder[] recorders = sRecorders;
+        for (Recorder r : recorders) {
+            if (r.mThread == thread) {
+                r.mRefCount++;
+                return r;
+            }
+        }
+        if (recorders.length == 0 && !setListener(sListener)) {
+            return null;
+        }
+        Recorder recorder = new Recorder(thread, DEFAULT_CAPACITY);
+        recorder.mRefCount = 1;
+        Recorder[] newRecorders = new Recorder[recorders.length + 1];
+        System.arraycopy(recorders, 0, newRecorders, 0, recorders.length);
+        newRecorders[recorders.length] = recorder;
+        sRecorders = newRecorders;
+        return recorder;
+    }
+
+    /**
+     * 注销线程，引用计数为0时才真正移除，最后一个线程移除时清掉ProxyTransactListener
+     */
+    static synchronized void unregister(Recorder recorder) {
+        if (--recorder.mRefCount > 0) {
+            return;
+        }
+        Recorder[] recorders = sRecorders;
+        ArrayList<Recorder> list = new ArrayList<>(recorders.length);
+        for (Recorder r : recorders) {
+            if (r != recorder) {
+                list.add(r);
+            }
+        }
+        sRecorders = list.toArray(new Recorder[0]);
+        if (recorders.length > 0 && sRecorders.length == 0 && isSupported) { //没有线程需要追踪了，把listener清掉
+            setListener(null);
+        }
+    }
+
+    private static Recorder find(Thread thread) {
+        Recorder[] recorders = sRecorders;
+        for (Recorder r : recorders) {
+            if (r.mThread == thread) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 统计一下binder调用，用于拼接到报警信息里边
+     */
+    public static String describe(BinderCall[] calls) {
+        if (calls == null || calls.length == 0) {
+            return "";
+        }
+        long total = 0;
+        int pending = 0;
+        for (BinderCall call : calls) {
+            total += call.getDuration();
+            if (call.isPending()) pending++;
+        }
+        return "binder calls=" + calls.length + ", binder time=" + total + "ms"
+                + (pending > 0 ? ", pending=" + pending : "");
+    }
+
+    /**
+     * Binder$ProxyTransactListener 的实现
+     * onTransactStarted 返回的session就是当前线程的Recorder，onTransactEnded 的时候再拿回来
+     * binder调用可以嵌套（等待返回时线程会处理传入的binder回调），所以Recorder里边用栈记录还没结束的调用
+     */
+    private static final class TransactHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "onTransactStarted": {
+                    Recorder recorder = find(Thread.currentThread());
+                    if (recorder != null) {
+                        recorder.start(sClock.uptimeMillis(), (int) args[1]);
+                    }
+                    return recorder;
+                }
+                case "onTransactEnded":
+                    if (args[0] instanceof Recorder) {
+                        ((Recorder) args[0]).end(sClock.uptimeMillis());
+                    }
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "BinderTracker$TransactHandler";
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * 每个被监控线程的环形缓冲区
+     * 写入在被监控线程（binder调用线程），读取在watchdog线程或者handler线程
+     */
+    static final class Recorder {
+        private final Thread mThread;
+        private final long[] mStartTimes;
+        private final long[] mDurations; //-1 表示还没结束
+        private final int[] mCodes;
+        private long mCount; //总共记录过的次数，下标 = mCount % capacity
+        //还没结束的调用的序号（第几次start），嵌套的binder调用后开始的先结束
+        private final long[] mOpenSeqs = new long[MAX_NESTED_DEPTH];
+        private int mDepth; //可能超过MAX_NESTED_DEPTH，超过的部分不记录序号
+        private int mRefCount; //在BinderTracker锁里边读写
+
+        Recorder(Thread thread, int capacity) {
+            mThread = thread;
+            mStartTimes = new long[capacity];
+            mDurations = new long[capacity];
+            mCodes = new int[capacity];
+        }
+
+        synchronized void start(long now, int code) {
+            int index = (int) (mCount % mStartTimes.length);
+            mStartTimes[index] = now;
+            mDurations[index] = -1;
+            mCodes[index] = code;
+            if (mDepth < MAX_NESTED_DEPTH) {
+                mOpenSeqs[mDepth] = mCount;
+            }
+            mDepth++;
+            mCount++;
+        }
+
+        /**
+         * 结束最近一次还没结束的调用
+         */
+        synchronized void end(long now) {
+            if (mDepth == 0) return;
+            mDepth--;
+            if (mDepth >= MAX_NESTED_DEPTH) {
+                return;
+            }
+            long seq = mOpenSeqs[mDepth];
+            if (mCount - seq > mStartTimes.length) { //已经被环形缓冲区覆盖了
+                return;
+            }
+            int index = (int) (seq % mStartTimes.length);
+            if (mDurations[index] < 0) {
+                mDurations[index] = now - mStartTimes[index];
+            }
+        }
+
+        /**
+         * 取出 [from, now] 这段时间内的binder调用，按时间顺序
+         */
+        synchronized BinderCall[] snapshot(long from, long now) {
+            final int capacity = mStartTimes.length;
+            final int size = (int) Math.min(mCount, capacity);
+            int first = size;
+            for (int i = 0; i < size; i++) {
+                int index = (int) ((mCount - 1 - i) % capacity);
+                long duration = mDurations[index];
+                long end = duration < 0 ? now : mStartTimes[index] + duration;
+                if (end < from) {
+                    break;
+                }
+                first = i;
+            }
+            if (first == size) {
+                return EMPTY;
+            }
+
+            BinderCall[] calls = new BinderCall[first + 1];
+            for (int i = first; i >= 0; i--) {
+                int index = (int) ((mCount - 1 - i) % capacity);
+                long duration = mDurations[index];
+                boolean isPending = duration < 0;
+                calls[first - i] = new BinderCall(mStartTimes[index],
+                        isPending ? now - mStartTimes[index] : duration,
+                        mCodes[index],
+                        isPending);
+            }
+            return calls;
+        }
+    }
+
+    public static final class BinderCall implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long mStartTime;
+        private final long mDuration;
+        private final int mCode;
+        private final boolean isPending;
+
+        BinderCall(long startTime, long duration, int code, boolean pending) {
+            mStartTime = startTime;
+            mDuration = duration;
+            mCode = code;
+            isPending = pending;
+        }
+
+        /**
+         * binder调用开始时间（uptimeMillis）
+         */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        /**
+         * binder调用耗时，还没结束的话是到报警时为止的耗时
+         */
+        public long getDuration() {
+            return mDuration;
+        }
+
+        public int getTransactionCode() {
+            return mCode;
+        }
+
+        /**
+         * 报警时这个binder调用是否还没返回
+         */
+        public boolean isPending() {
+            return isPending;
+        }
+
+        @Override
+        public String toString() {
+            return "BinderCall{start=" + mStartTime + ", duration=" + mDuration
+                    + "ms, code=" + mCode + (isPending ? ", pending" : "") + "}";
+        }
+    }
+}
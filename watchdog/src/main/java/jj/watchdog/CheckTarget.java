@@ -0,0 +1,26 @@
+package jj.watchdog;
+
+/**
+ * author: JJLeong
+ * detail: 被检查的线程（消息队列）
+ *
+ * Checker只通过这个接口跟线程打交道：真实环境是JJWatchDog里边对Handler的封装，模拟测试是FakeLooper。
+ */
+interface CheckTarget {
+
+    /**
+     * 消息队列是否空闲，对应 MessageQueue#isPolling
+     */
+    boolean isPolling();
+
+    /**
+     * 发送检查消息
+     * @param isAtFront true: Handler#postAtFrontOfQueue；false：Handler#post
+     */
+    void post(Runnable check, boolean isAtFront);
+
+    /**
+     * 取消检查消息
+     */
+    void removeCallbacks(Runnable check);
+}
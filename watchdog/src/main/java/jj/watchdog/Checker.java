@@ -0,0 +1,185 @@
+package jj.watchdog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * author: JJLeong
+ * detail: Checker - HandlerChecker的检查逻辑（不依赖Android）
+ *
+ * 发起检查、执行Monitor、判断逾期都在这里，跟线程打交道只通过CheckTarget。
+ * JJWatchDog里边的HandlerChecker继承它，再加上Handler、MessageLogging这些Android相关的东西；
+ * 模拟测试直接用它 + FakeLooper，所以两边跑的是同一套逻辑。
+ */
+class Checker implements Runnable {
+    private final CheckTarget mTarget;
+    private final String mName;
+    private final boolean isPostAtFront;
+    private final ArrayList<JJWatchDog.Monitor> mMonitors = new ArrayList<>();
+    /**
+     * 每个Monitor执行monitor()的耗时（即获取锁的耗时），在mLock锁里边读写
+     */
+    private final HashMap<JJWatchDog.Monitor, LatencyHistogram> mMonitorLatencies = new HashMap<>();
+    /**
+     * Monitor的名字，用于统计和报警信息（lambda的类名是看不懂的）
+     */
+    private final HashMap<JJWatchDog.Monitor, String> mMonitorNames = new HashMap<>();
+    private JJWatchDog.Monitor mCurrentMonitor;
+
+    /**
+     * 检查状态 & msg耗时，该属性会在handler线程、watchdog线程用到
+     */
+    final CheckerState mState;
+    final WatchDogClock mClock;
+    /**
+     * 完成检查、切换Monitor时用的锁，跟 WatchDogLoop#checkOnce 的lock是同一个
+     */
+    private final Object mLock;
+    private final WatchDogLoop.Logger mLogger;
+
+    Checker(CheckTarget target, String name, long waitMaxMillis, boolean isAtFront,
+            WatchDogClock clock, Object lock, WatchDogLoop.Logger logger) {
+        mTarget = target;
+        mName = name;
+        mState = new CheckerState(waitMaxMillis);
+        isPostAtFront = isAtFront;
+        mClock = clock;
+        mLock = lock;
+        mLogger = logger;
+    }
+
+    @Override
+    public void run() {
+        log(WatchDogLoop.DEBUG, mName + " -> run interval=" + (mClock.uptimeMillis() - mState.getStartTime()));
+        final int size = mMonitors.size();
+        for (int i = 0 ; i < size ; i++) {
+            synchronized (mLock) {
+                mCurrentMonitor = mMonitors.get(i);
+            }
+            long start = mClock.nanoTime();
+            mCurrentMonitor.monitor();
+            long cost = mClock.nanoTime() - start;
+            synchronized (mLock) {
+                LatencyHistogram histogram = mMonitorLatencies.get(mCurrentMonitor);
+                if (histogram != null){
+                    histogram.record(cost);
+                }
+            }
+        }
+
+        synchronized (mLock) {
+            mState.complete();
+            mCurrentMonitor = null;
+        }
+    }
+
+    /**
+     * 发起检查
+     */
+    public void scheduleCheck() {
+        if (mMonitors.size() == 0 && mTarget.isPolling()) {
+            log(WatchDogLoop.DEBUG, mName + " -> mMonitors is empty or MessageQueue is polling.");
+            mState.complete();
+            return;
+        }
+
+        if (!mState.schedule(mClock.uptimeMillis())) {
+            log(WatchDogLoop.DEBUG, mName + " -> waiting.");
+            return;
+        }
+
+        mCurrentMonitor = null;
+        mTarget.post(this, isPostAtFront);
+        log(WatchDogLoop.DEBUG, mName + " -> scheduleCheck.");
+    }
+
+    /**
+     * 取消检查
+     */
+    void unscheduleCheck(){
+        if (mState.isCompleted()){
+            return;
+        }
+        mTarget.removeCallbacks(this);
+    }
+
+    public void addMonitor(JJWatchDog.Monitor monitor) {
+        addMonitor(monitor.getClass().getName(), monitor);
+    }
+
+    public void addMonitor(String name, JJWatchDog.Monitor monitor) {
+        if (!mMonitors.contains(monitor)) {
+            mMonitors.add(monitor);
+            mMonitorLatencies.put(monitor, new LatencyHistogram());
+        }
+        mMonitorNames.put(monitor, name);
+    }
+
+    public void removeMonitor(JJWatchDog.Monitor monitor){
+        mMonitors.remove(monitor);
+        mMonitorLatencies.remove(monitor);
+        mMonitorNames.remove(monitor);
+    }
+
+    /**
+     * Monitor的名字，没有指定名字就是类名
+     */
+    String getMonitorName(JJWatchDog.Monitor monitor) {
+        String name = mMonitorNames.get(monitor);
+        return name != null ? name : monitor.getClass().getName();
+    }
+
+    /**
+     * 收集每个Monitor获取锁的耗时统计
+     */
+    void collectMonitorStats(List<LockStats> out){
+        for (JJWatchDog.Monitor monitor : mMonitors){
+            LatencyHistogram histogram = mMonitorLatencies.get(monitor);
+            if (histogram != null){
+                out.add(histogram.toLockStats(getMonitorName(monitor), 0, 0, 0, 0));
+            }
+        }
+    }
+
+    /**
+     * 是否逾期了
+     */
+    public boolean isOverdueLocked() {
+        return mState.isOverdue(mClock.uptimeMillis());
+    }
+
+    public boolean isCompletion() {
+        return mState.isCompleted();
+    }
+
+    /**
+     * 这一轮检查的发起时间
+     */
+    long getStartTime() {
+        return mState.getStartTime();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    JJWatchDog.Monitor getCurrentMonitor() {
+        return mCurrentMonitor;
+    }
+
+    CheckTarget getTarget() {
+        return mTarget;
+    }
+
+    public void release(){
+        unscheduleCheck();
+        mMonitors.clear();
+        mMonitorLatencies.clear();
+        mMonitorNames.clear();
+    }
+
+    void log(int logPriority, String msg){
+        mLogger.log(logPriority, msg);
+    }
+}
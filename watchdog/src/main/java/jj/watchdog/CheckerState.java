@@ -0,0 +1,94 @@
+package jj.watchdog;
+
+/**
+ * author: JJLeong
+ * detail: HandlerChecker的检测状态（不依赖Android，方便在JVM上模拟）
+ *
+ * 检查状态：mCompleted、mStartTime 由watchdog线程发起检查、handler线程完成检查。
+ * msg耗时：mMsgDispatchTime、mMsgDispatchInfo 由handler线程的Looper日志驱动。
+ * 时间全部由调用方传入，所以真实时钟和虚拟时钟都可以用。
+ */
+final class CheckerState {
+    private final long mWaitMax;
+    private boolean mCompleted = true;
+    private long mStartTime;
+
+    private long mMsgDispatchTime; //msg开始执行时间
+    private String mMsgDispatchInfo; //msg信息
+
+    CheckerState(long waitMaxMillis) {
+        mWaitMax = waitMaxMillis;
+    }
+
+    /**
+     * 发起检查
+     * @return true: 需要往Handler发送检查消息；false: 上一个检查还没结束
+     */
+    boolean schedule(long now) {
+        if (!mCompleted) {
+            return false;
+        }
+        mCompleted = false;
+        mStartTime = now;
+        return true;
+    }
+
+    void complete() {
+        mCompleted = true;
+    }
+
+    boolean isCompleted() {
+        return mCompleted;
+    }
+
+    long getStartTime() {
+        return mStartTime;
+    }
+
+    long getWaitMax() {
+        return mWaitMax;
+    }
+
+    /**
+     * 是否逾期了
+     */
+    boolean isOverdue(long now) {
+        return (!mCompleted) && (now > mStartTime + mWaitMax);
+    }
+
+    /**
+     * msg开始执行
+     */
+    void onDispatchStart(long now, String info) {
+        mMsgDispatchTime = now;
+        mMsgDispatchInfo = info;
+    }
+
+    /**
+     * msg执行结束
+     * @return 逾期msg的信息，没有逾期返回null
+     */
+    String onDispatchFinish(long now) {
+        long time = mMsgDispatchInfo != null ? now - mMsgDispatchTime : 0;
+        if (time < mWaitMax) {
+            mMsgDispatchTime = 0;
+            mMsgDispatchInfo = null;
+            return null;
+        }
+        return mMsgDispatchInfo;
+    }
+
+    /**
+     * 是否有msg正在执行（需要开启MessageLogging）
+     */
+    boolean isDispatching() {
+        return mMsgDispatchInfo != null;
+    }
+
+    /**
+     * 当前正在执行的msg的开始时间，没有则返回0
+     */
+    long getMsgDispatchTime() {
+        return mMsgDispatchTime;
+    }
+}
@@ -5,6 +5,7 @@ import android.util.Log;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * author: JJLeong
@@ -17,6 +18,7 @@ import java.util.ArrayList;
 public class GcWatchDog {
     private static WeakReference<GcWatcher> gcWatchDogReference = new WeakReference<>(new GcWatcher());
     private static final ArrayList<Runnable> watchDogList = new ArrayList<>();
+    //复用的数组，只有前面size个是有效的，后面的要清空，不然已经remove的Runnable还会被回调、也会被一直引用着
     private static Runnable[] mTmpWatchDog = new Runnable[1];
 
     private static long mLastGcTime;
@@ -27,12 +29,15 @@ public class GcWatchDog {
             //Log.e("JJ", "finalize " + (SystemClock.uptimeMillis() - mLastGcTime));
             mLastGcTime = SystemClock.uptimeMillis();
             synchronized (watchDogList) {
+                int size = watchDogList.size();
                 mTmpWatchDog = watchDogList.toArray(mTmpWatchDog);
+                Arrays.fill(mTmpWatchDog, size, mTmpWatchDog.length, null);
             }
             for (Runnable runnable : mTmpWatchDog) {
-                if (runnable != null) {
-                    runnable.run();
+                if (runnable == null) {
+                    break;
                 }
+                runnable.run();
             }
             gcWatchDogReference = new WeakReference<>(new GcWatcher());
         }
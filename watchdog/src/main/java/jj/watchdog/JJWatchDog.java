@@ -5,13 +5,13 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.MessageQueue;
-import android.os.SystemClock;
 import android.util.Log;
 import android.util.Printer;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -47,11 +47,15 @@ public class JJWatchDog extends Thread{
     private long checkTimeInterval = DEFAULT_TIMEOUT;
     private boolean isCloseDefaultMessageLogging = false;
     private boolean isPostAtFrontOfQueue = false;
+    private boolean isOpenBinderTracking = false;
 
     private boolean isCloseDefaultMainThreadCheck = false;
     private long main_waitMaxMillis = DEFAULT_TIMEOUT;
     private Printer main_Printer;
 
+    private final WatchDogClock mClock = WatchDogClock.SYSTEM;
+    private final WatchDogLoop mLoop = new WatchDogLoop(mClock, this::log);
+
     private static JJWatchDog sWatchdog;
     public static JJWatchDog get() {
         if (sWatchdog == null) { sWatchdog = new JJWatchDog(); }
@@ -96,6 +100,18 @@ public class JJWatchDog extends Thread{
         return this;
     }
 
+    /**
+     * 开启binder调用追踪（默认是关闭的）
+     * 记录被监控线程每次binder调用的开始时间和耗时，消息逾期、线程阻塞时一起回调出去。
+     * 10.0以上通过反射 Binder#setProxyTransactListener 实现，不支持的系统什么都不做。
+     * 注意：这个listener整个进程只有一个，会覆盖掉其他组件设置的，所有被监控线程都移除之后会清掉。
+     * 需要在loop、addThread之前调用。
+     */
+    public JJWatchDog openBinderTracking(){
+        isOpenBinderTracking = true;
+        return this;
+    }
+
     /**
      * 自定义主线程Checker配置
      * @param waitMaxMillis - 最大等待时长，超过这个时长才回调
@@ -150,28 +166,9 @@ public class JJWatchDog extends Thread{
     @Override
     public void run() {
         while (isWorking) {
-            List<HandlerChecker> blockedCheckers = null;
+            List<HandlerChecker> blockedCheckers;
             synchronized (this) {
-                long timeout = checkTimeInterval;
-                for (int i = 0; i < mHandlerCheckers.size(); i++) {
-                    HandlerChecker hc = mHandlerCheckers.get(i);
-                    hc.scheduleCheck();
-                }
-
-                long start = SystemClock.uptimeMillis();
-                while (timeout > 0) {
-                    try {
-                        log(Log.DEBUG, "wait " + timeout);
-                        wait(timeout);
-                    } catch (InterruptedException e) {
-                        log(Log.ERROR, "wait fail, err=" + e.getMessage());
-                    }
-                    timeout = checkTimeInterval - (SystemClock.uptimeMillis() - start);
-                }
-
-                if (!evaluateCheckerCompletion()) {
-                    blockedCheckers = getBlockedCheckers();
-                }
+                blockedCheckers = mLoop.checkOnce(this, mHandlerCheckers, checkTimeInterval);
             }
 
             //发现有阻塞的Checker了
@@ -181,7 +178,8 @@ public class JJWatchDog extends Thread{
                     if (mListener != null){
                         mListener.onThreadBlocked(checker.getName(),
                                 new WatchDogThrowable(checker.describeBlockedState(),
-                                        checker.getThread().getStackTrace()));
+                                        checker.getThread().getStackTrace(),
+                                        checker.getBlockedBinderCalls()));
                     }
                 }
             }
@@ -208,35 +206,23 @@ public class JJWatchDog extends Thread{
     }
 
     /**
-     * 计算Checker们是否已经完成了，如果有任何一个没完成就返回
+     * 添加锁监控
      */
-    private boolean evaluateCheckerCompletion() {
-        for (int i = 0; i < mHandlerCheckers.size(); i++) {
-            HandlerChecker hc = mHandlerCheckers.get(i);
-            if (!hc.isCompletion()){
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private ArrayList<HandlerChecker> getBlockedCheckers() {
-        ArrayList<HandlerChecker> checkers = new ArrayList<>();
-        for (int i=0; i<mHandlerCheckers.size(); i++) {
-            HandlerChecker hc = mHandlerCheckers.get(i);
-            if (hc.isOverdueLocked()) {
-                checkers.add(hc);
-            }
-        }
-        return checkers;
+    public synchronized void addMonitor(Monitor monitor) {
+        initMonitorChecker();
+        mMonitorChecker.addMonitor(monitor);
     }
 
     /**
      * 添加锁监控
+     * @param name - Monitor的名字，用于 getSlowestLocks 和报警信息（默认是类名，lambda的类名是看不懂的）
      */
-    public synchronized void addMonitor(Monitor monitor) {
+    public synchronized void addMonitor(String name, Monitor monitor) {
+        if (name == null){
+            throw new IllegalArgumentException("name is null.");
+        }
         initMonitorChecker();
-        mMonitorChecker.addMonitor(monitor);
+        mMonitorChecker.addMonitor(name, monitor);
     }
 
     /**
@@ -248,6 +234,23 @@ public class JJWatchDog extends Thread{
         }
     }
 
+    /**
+     * 最慢的几个锁（按获取锁耗时的p99排序）
+     * 包括addMonitor添加的Monitor以及所有的WatchDogLock
+     * @param count 最多返回几个
+     */
+    public synchronized List<LockStats> getSlowestLocks(int count) {
+        if (count < 0){
+            throw new IllegalArgumentException("count < 0.");
+        }
+        ArrayList<LockStats> stats = WatchDogLock.getAllStats();
+        if (mMonitorChecker != null){
+            mMonitorChecker.collectMonitorStats(stats);
+        }
+        Collections.sort(stats, LockStats.SLOWEST_FIRST);
+        return new ArrayList<>(stats.subList(0, Math.min(count, stats.size())));
+    }
+
     public void addThread(Handler thread) {
         addThread(thread, checkTimeInterval, true);
     }
@@ -347,18 +350,14 @@ public class JJWatchDog extends Thread{
         }
     }
 
-    public final class HandlerChecker implements Runnable {
+    public final class HandlerChecker extends Checker {
         private final Handler mHandler;
-        private final String mName;
-        private final long mWaitMax;
-        private final ArrayList<Monitor> mMonitors = new ArrayList<>();
-        private boolean mCompleted;
-        private Monitor mCurrentMonitor;
-        private long mStartTime;
-        private final boolean isPostAtFront;
 
-        private long mMsgDispatchTime; //msg开始执行时间，该属性会在handler线程、watchdog线程用到
-        private String mMsgDispatchInfo; //msg信息，该属性会在handler线程、watchdog线程用到
+        /**
+         * binder调用记录，没开启binder追踪或者系统不支持时为null
+         * handler线程、watchdog线程会读，release时会置空，所以读的时候先取到局部变量
+         */
+        private volatile BinderTracker.Recorder mBinderRecorder;
 
         HandlerChecker(Handler handler, String name, long waitMaxMillis) {
             this(handler, name, waitMaxMillis, true, false,null);
@@ -373,11 +372,12 @@ public class JJWatchDog extends Thread{
         }
 
         HandlerChecker(Handler handler, String name, long waitMaxMillis, boolean isAtFront, boolean isCloseMessageLogging, Printer printer) {
+            super(new HandlerTarget(handler), name, waitMaxMillis, isAtFront, JJWatchDog.this.mClock, JJWatchDog.this, JJWatchDog.this::log);
             mHandler = handler;
-            mName = name;
-            mWaitMax = waitMaxMillis;
-            isPostAtFront = isAtFront;
-            mCompleted = true;
+
+            if (isOpenBinderTracking && BinderTracker.install(mClock)){
+                mBinderRecorder = BinderTracker.register(getThread());
+            }
 
             if (!isCloseMessageLogging){
                 mHandler.getLooper().setMessageLogging(log -> {
@@ -398,7 +398,7 @@ public class JJWatchDog extends Thread{
          * 需要先记录逾期的msg信息，等watchdog执行的时候才报警。
          */
         private void evaluateMsgTimeFromMessageLogging(String log){
-            log(Log.VERBOSE, mName + " log: " + log);
+            log(Log.VERBOSE, getName() + " log: " + log);
             //log format
             //">>>>> Dispatching to " + msg.target + " " + msg.callback + ": " + msg.what
             //"<<<<< Finished to " + msg.target + " " + msg.callback
@@ -409,86 +409,102 @@ public class JJWatchDog extends Thread{
             //每个线程的消息队列都是一条条消息去执行，所以日志肯定是成对出现的。
             //所有我觉得不用对每条消息都校验 msg.target + msg.callback 来确保是不是同一条消息的。
             if (log.startsWith(">>>>> Dispatching to ")){
-                mMsgDispatchTime = SystemClock.uptimeMillis();
-                mMsgDispatchInfo = log.replace(">>>>> Dispatching to ", "");
+                mState.onDispatchStart(mClock.uptimeMillis(), log.replace(">>>>> Dispatching to ", ""));
             }else {
-                long time = mMsgDispatchTime > 0
-                        ? SystemClock.uptimeMillis() - mMsgDispatchTime : 0;
-                if (time < mWaitMax){
-                    mMsgDispatchTime = 0;
-                    mMsgDispatchInfo = null;
-                }else { //发现该消息逾期了
-                    log(Log.WARN, "found overdue message: " + mMsgDispatchInfo);
+                long now = mClock.uptimeMillis();
+                String overdueInfo = mState.onDispatchFinish(now);
+                if (overdueInfo != null){ //发现该消息逾期了
+                    BinderTracker.BinderCall[] binderCalls = getBinderCalls(mState.getMsgDispatchTime(), now);
+                    log(Log.WARN, "found overdue message: " + overdueInfo + " " + BinderTracker.describe(binderCalls));
                     if (mListener != null){
-                        mListener.onHandleMessageOverdue(mMsgDispatchInfo);
+                        mListener.onHandleMessageOverdue(overdueInfo, binderCalls);
                     }
                 }
             }
         }
 
-        @Override
-        public void run() {
-            log(Log.DEBUG, mName + " -> run interval=" + (SystemClock.uptimeMillis() - mStartTime));
-            final int size = mMonitors.size();
-            for (int i = 0 ; i < size ; i++) {
-                synchronized (JJWatchDog.this) {
-                    mCurrentMonitor = mMonitors.get(i);
-                }
-                mCurrentMonitor.monitor();
-            }
+        public Thread getThread() {
+            return mHandler.getLooper().getThread();
+        }
 
-            synchronized (JJWatchDog.this) {
-                mCompleted = true;
-                mCurrentMonitor = null;
+        public String describeBlockedState() {
+            Monitor currentMonitor = getCurrentMonitor();
+            if (currentMonitor == null) {
+                return "Blocked in handler on " + getName() + " (" + getThread().getName() + ")";
+            } else {
+                return "Blocked in monitor " + getMonitorName(currentMonitor) + " on " + getName() + " (" + getThread().getName() + ")";
             }
         }
 
         /**
-         * 发起检查
+         * 取出 [from, now] 这段时间内的binder调用
          */
-        public void scheduleCheck() {
-            if (mMonitors.size() == 0 && isPolling(mHandler)) {
-                log(Log.DEBUG, mName + " -> mMonitors is empty or MessageQueue is polling.");
-                mCompleted = true;
-                return;
+        private BinderTracker.BinderCall[] getBinderCalls(long from, long now){
+            BinderTracker.Recorder recorder = mBinderRecorder;
+            if (recorder == null){
+                return BinderTracker.EMPTY;
             }
+            return recorder.snapshot(from, now);
+        }
+
+        /**
+         * 阻塞期间的binder调用：从正在执行的msg开始算，没有开启MessageLogging就从发起检查开始算
+         */
+        public BinderTracker.BinderCall[] getBlockedBinderCalls(){
+            long from = mState.isDispatching() ? mState.getMsgDispatchTime() : mState.getStartTime();
+            return getBinderCalls(from, mClock.uptimeMillis());
+        }
 
-            if (!mCompleted) {
-                log(Log.DEBUG, mName + " -> waiting.");
-                return;
+        public boolean isSelf(Handler handler){
+            return mHandler == handler;
+        }
+
+        @Override
+        public void release(){
+            super.release();
+            BinderTracker.Recorder recorder = mBinderRecorder;
+            if (recorder != null){
+                mBinderRecorder = null;
+                BinderTracker.unregister(recorder);
             }
+        }
+    }
+
+    /**
+     * Checker通过这个往Handler发送检查消息
+     */
+    private final class HandlerTarget implements CheckTarget {
+        private final Handler mHandler;
+
+        HandlerTarget(Handler handler) {
+            mHandler = handler;
+        }
 
-            mCompleted = false;
-            mCurrentMonitor = null;
-            mStartTime = SystemClock.uptimeMillis();
-            if (isPostAtFront){
-                mHandler.postAtFrontOfQueue(this);
+        @Override
+        public void post(Runnable check, boolean isAtFront) {
+            if (isAtFront){
+                mHandler.postAtFrontOfQueue(check);
             }else {
-                mHandler.post(this);
+                mHandler.post(check);
             }
-            log(Log.DEBUG, mName + " -> scheduleCheck.");
         }
 
-        /**
-         * 取消检查
-         */
-        private void unscheduleCheck(){
-            if (mCompleted){
-                return;
-            }
-            mHandler.removeCallbacks(this);
+        @Override
+        public void removeCallbacks(Runnable check) {
+            mHandler.removeCallbacks(check);
         }
 
         /**
          * 判断当前Handler是否空闲
          */
-        private boolean isPolling(Handler handler){
+        @Override
+        public boolean isPolling(){
             boolean isPolling = false;
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) { //6.0以上直接反射MessageQueue#isPolling
                 try {
                     Method method = MessageQueue.class.getDeclaredMethod("isPolling", null);
                     method.setAccessible(true);
-                    isPolling = (boolean) method.invoke(handler.getLooper().getQueue(), null);
+                    isPolling = (boolean) method.invoke(mHandler.getLooper().getQueue(), null);
                 } catch (Exception e) {
                     log(Log.ERROR, "M+ invoke isPolling fail. err=" + e.getMessage());
                 }
@@ -496,7 +512,7 @@ public class JJWatchDog extends Thread{
                 try {
                     Field field = Handler.class.getDeclaredField("mQueue");
                     field.setAccessible(true);
-                    MessageQueue mq = (MessageQueue) field.get(handler);
+                    MessageQueue mq = (MessageQueue) field.get(mHandler);
 
                     Method method = MessageQueue.class.getDeclaredMethod("isPolling", null);
                     method.setAccessible(true);
@@ -507,50 +523,6 @@ public class JJWatchDog extends Thread{
             }
             return isPolling;
         }
-
-        public void addMonitor(Monitor monitor) {
-            if (!mMonitors.contains(monitor)) mMonitors.add(monitor);
-        }
-
-        public void removeMonitor(Monitor monitor){
-            mMonitors.remove(monitor);
-        }
-
-        /**
-         * 是否逾期了
-         */
-        public boolean isOverdueLocked() {
-            return (!mCompleted) && (SystemClock.uptimeMillis() > mStartTime + mWaitMax);
-        }
-
-        public boolean isCompletion() {
-            return mCompleted;
-        }
-
-        public Thread getThread() {
-            return mHandler.getLooper().getThread();
-        }
-
-        public String getName() {
-            return mName;
-        }
-
-        public String describeBlockedState() {
-            if (mCurrentMonitor == null) {
-                return "Blocked in handler on " + mName + " (" + getThread().getName() + ")";
-            } else {
-                return "Blocked in monitor " + mCurrentMonitor.getClass().getName() + " on " + mName + " (" + getThread().getName() + ")";
-            }
-        }
-
-        public boolean isSelf(Handler handler){
-            return mHandler == handler;
-        }
-
-        public void release(){
-            unscheduleCheck();
-            mMonitors.clear();
-        }
     }
 
     public interface Monitor {
@@ -565,10 +537,18 @@ public class JJWatchDog extends Thread{
         void onThreadBlocked(String threadName, WatchDogThrowable throwable);
 
         /**
-         * 检测到有handle消息逾期了（超出了最大监控时长 HandlerChecker#mWaitMax）
+         * 检测到有handle消息逾期了（超出了最大监控时长 CheckerState#mWaitMax）
          * 在handle对应的线程执行回调
          */
         default void onHandleMessageOverdue(String messageInfo){};
+
+        /**
+         * 同上，带上这条消息执行期间的binder调用（需要 openBinderTracking，没有则是空数组）
+         * 默认转发到 onHandleMessageOverdue(String)
+         */
+        default void onHandleMessageOverdue(String messageInfo, BinderTracker.BinderCall[] binderCalls){
+            onHandleMessageOverdue(messageInfo);
+        }
     }
 
     private static final class MonitorHandler extends HandlerThread{
@@ -583,9 +563,25 @@ public class JJWatchDog extends Thread{
     }
 
     public static final class WatchDogThrowable extends Throwable{
+        private static final long serialVersionUID = 1L;
+
+        private final BinderTracker.BinderCall[] mBinderCalls;
+
         WatchDogThrowable(String msg, StackTraceElement[] stackTrace){
-            super(msg);
+            this(msg, stackTrace, BinderTracker.EMPTY);
+        }
+
+        WatchDogThrowable(String msg, StackTraceElement[] stackTrace, BinderTracker.BinderCall[] binderCalls){
+            super(binderCalls.length > 0 ? msg + ", " + BinderTracker.describe(binderCalls) : msg);
             setStackTrace(stackTrace);
+            mBinderCalls = binderCalls;
+        }
+
+        /**
+         * 阻塞期间的binder调用（需要 openBinderTracking，没有则是空数组）
+         */
+        public BinderTracker.BinderCall[] getBinderCalls() {
+            return mBinderCalls;
         }
     }
 }
@@ -0,0 +1,68 @@
+package jj.watchdog;
+
+/**
+ * author: JJLeong
+ * detail: 耗时直方图 - 按2的幂分桶，单位微秒
+ *
+ * 第0个桶：<1us，第i个桶：[2^(i-1), 2^i) us，最后一个桶装下所有更大的值。
+ * 32个long就能覆盖到半个多小时，内存固定，记录一次只是几次加法。
+ * 百分位取的是桶的上界，只用来看趋势。
+ */
+final class LatencyHistogram {
+    private static final int BUCKET_COUNT = 32;
+
+    private final long[] mBuckets = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mTotalMicros;
+    private long mMaxMicros;
+
+    synchronized void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+        mBuckets[bucket]++;
+        mCount++;
+        mTotalMicros += micros;
+        if (micros > mMaxMicros) {
+            mMaxMicros = micros;
+        }
+    }
+
+    synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @param percent 0 ~ 100
+     */
+    synchronized long getPercentileMicros(float percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(mCount * percent / 100f);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets[i];
+            if (seen >= target && mBuckets[i] > 0) {
+                return Math.min(1L << i, mMaxMicros);
+            }
+        }
+        return mMaxMicros;
+    }
+
+    /**
+     * 生成锁的统计信息
+     */
+    synchronized LockStats toLockStats(String name, long contendedCount,
+                                       long totalHoldMicros, long maxHoldMicros, int maxWaiters) {
+        return new LockStats(name,
+                mCount,
+                contendedCount,
+                mTotalMicros,
+                mMaxMicros,
+                getPercentileMicros(50),
+                getPercentileMicros(99),
+                totalHoldMicros,
+                maxHoldMicros,
+                maxWaiters);
+    }
+}
@@ -0,0 +1,122 @@
+package jj.watchdog;
+
+import java.util.Comparator;
+
+/**
+ * author: JJLeong
+ * detail: 锁的统计信息（快照）
+ *
+ * 来源有两个：
+ *  1、addMonitor添加的Monitor：每次monitor()的耗时就是获取锁的耗时，name是 addMonitor(String, Monitor) 传入的名字，没传就是Monitor的类名；
+ *  2、WatchDogLock：获取锁的耗时、持有锁的耗时、等待线程数，name是创建时传入的名字。
+ * 时间单位都是微秒。
+ */
+public final class LockStats {
+    /**
+     * 越慢越靠前：先比p99，再比最大耗时，最后比总耗时
+     */
+    public static final Comparator<LockStats> SLOWEST_FIRST = new Comparator<LockStats>() {
+        @Override
+        public int compare(LockStats o1, LockStats o2) {
+            if (o1.mP99WaitMicros != o2.mP99WaitMicros) {
+                return o1.mP99WaitMicros > o2.mP99WaitMicros ? -1 : 1;
+            }
+            if (o1.mMaxWaitMicros != o2.mMaxWaitMicros) {
+                return o1.mMaxWaitMicros > o2.mMaxWaitMicros ? -1 : 1;
+            }
+            if (o1.mTotalWaitMicros != o2.mTotalWaitMicros) {
+                return o1.mTotalWaitMicros > o2.mTotalWaitMicros ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private final String mName;
+    private final long mAcquireCount;
+    private final long mContendedCount;
+    private final long mTotalWaitMicros;
+    private final long mMaxWaitMicros;
+    private final long mP50WaitMicros;
+    private final long mP99WaitMicros;
+    private final long mTotalHoldMicros;
+    private final long mMaxHoldMicros;
+    private final int mMaxWaiters;
+
+    LockStats(String name, long acquireCount, long contendedCount,
+              long totalWaitMicros, long maxWaitMicros, long p50WaitMicros, long p99WaitMicros,
+              long totalHoldMicros, long maxHoldMicros, int maxWaiters) {
+        mName = name;
+        mAcquireCount = acquireCount;
+        mContendedCount = contendedCount;
+        mTotalWaitMicros = totalWaitMicros;
+        mMaxWaitMicros = maxWaitMicros;
+        mP50WaitMicros = p50WaitMicros;
+        mP99WaitMicros = p99WaitMicros;
+        mTotalHoldMicros = totalHoldMicros;
+        mMaxHoldMicros = maxHoldMicros;
+        mMaxWaiters = maxWaiters;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 获取锁的次数
+     */
+    public long getAcquireCount() {
+        return mAcquireCount;
+    }
+
+    /**
+     * 获取锁时已经被别的线程持有的次数（Monitor没有这个数据，为0）
+     */
+    public long getContendedCount() {
+        return mContendedCount;
+    }
+
+    public long getTotalWaitMicros() {
+        return mTotalWaitMicros;
+    }
+
+    public long getMaxWaitMicros() {
+        return mMaxWaitMicros;
+    }
+
+    public long getP50WaitMicros() {
+        return mP50WaitMicros;
+    }
+
+    public long getP99WaitMicros() {
+        return mP99WaitMicros;
+    }
+
+    /**
+     * 持有锁的总耗时（Monitor没有这个数据，为0）
+     */
+    public long getTotalHoldMicros() {
+        return mTotalHoldMicros;
+    }
+
+    public long getMaxHoldMicros() {
+        return mMaxHoldMicros;
+    }
+
+    /**
+     * 同时等待这个锁的最大线程数（Monitor没有这个数据，为0）
+     */
+    public int getMaxWaiters() {
+        return mMaxWaiters;
+    }
+
+    @Override
+    public String toString() {
+        return "LockStats{" + mName
+                + ", acquire=" + mAcquireCount
+                + ", contended=" + mContendedCount
+                + ", wait(p50/p99/max)=" + mP50WaitMicros + "/" + mP99WaitMicros + "/" + mMaxWaitMicros + "us"
+                + ", hold(total/max)=" + mTotalHoldMicros + "/" + mMaxHoldMicros + "us"
+                + ", maxWaiters=" + mMaxWaiters
+                + "}";
+    }
+}
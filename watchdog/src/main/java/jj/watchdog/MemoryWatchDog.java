@@ -0,0 +1,400 @@
+package jj.watchdog;
+
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * author: JJLeong
+ * detail: 内存看门狗 - 预测OOM
+ *
+ * 不轮询，靠GcWatchDog驱动：每次GC之后采样一次存活的堆内存（GC之后还在用的内存）。
+ * 最近的N次采样做一次线性拟合，斜率就是存活内存的增长速度，用剩余内存 / 增长速度 估算多久之后会OOM。
+ * 估算时间低于阈值就回调出去，还可以顺便dump一份hprof（限频，在单独的线程写，目录里边最多保留几个文件）。
+ * 只在第一次低于阈值时回调，之后估算时间回到阈值以上（或者内存不再增长）才会再次回调，不会每次GC都回调。
+ * 两次GC之间的分配速度（6.0以上通过 Debug#getRuntimeStat 获取）也会一起回调出去，作为参考。
+ *
+ * 注意：GC回调执行在FinalizerDaemon线程，MemoryListener里边不要做耗时操作。
+ */
+public class MemoryWatchDog {
+    private static final String TAG = "WatchDog_Log";
+
+    private static final int DEFAULT_WINDOW_SIZE = 8;
+    private static final int MIN_SAMPLE_COUNT = 3;
+    private static final long DEFAULT_OOM_THRESHOLD = 5 * 60 * 1000;
+    private static final String DUMP_FILE_PREFIX = "heap_";
+    private static final String DUMP_FILE_SUFFIX = ".hprof";
+
+    private final MemoryListener mListener;
+    private WatchDogClock mClock = WatchDogClock.SYSTEM;
+    private long oomThresholdMillis = DEFAULT_OOM_THRESHOLD;
+    private boolean isPrintLog;
+
+    //固定窗口的环形缓冲区：GC时间、GC之后存活的内存
+    private long[] mSampleTimes = new long[DEFAULT_WINDOW_SIZE];
+    private long[] mSampleRetained = new long[DEFAULT_WINDOW_SIZE];
+    private int mSampleCount;
+
+    private long mLastGcTime;
+    private long mLastAllocatedBytes = -1;
+    /**
+     * 已经回调过onOomPredicted，估算时间回到阈值以上才重置
+     */
+    private boolean isOomPredicted = false;
+
+    private File mDumpDir;
+    private int mMaxDumpFiles;
+    private long mDumpMinIntervalMillis;
+    private long mLastDumpTime;
+    private boolean isDumping = false;
+
+    /**
+     * GcWatchDog是先拷贝一份列表再回调的，stop跟GC同时发生时，这一次GC还是会回调onGc，所以要在onGc里边判断
+     */
+    private volatile boolean isWorking = false;
+    private final Runnable mGcWatcher = this::onGc;
+
+    public MemoryWatchDog(MemoryListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is null.");
+        }
+        mListener = listener;
+    }
+
+    //region  ===== 建造者方式的方法 =====
+
+    /**
+     * 线性拟合用的采样个数（最近几次GC），默认8次
+     */
+    public synchronized MemoryWatchDog setWindowSize(int size) {
+        if (size < MIN_SAMPLE_COUNT) {
+            throw new IllegalArgumentException("window size must >= " + MIN_SAMPLE_COUNT);
+        }
+        mSampleTimes = new long[size];
+        mSampleRetained = new long[size];
+        mSampleCount = 0;
+        isOomPredicted = false;
+        return this;
+    }
+
+    /**
+     * 估算距离OOM的时间低于这个阈值就回调，默认5分钟
+     * @param millisecond 单位毫秒
+     */
+    public synchronized MemoryWatchDog setOomThreshold(long millisecond) {
+        oomThresholdMillis = millisecond;
+        return this;
+    }
+
+    /**
+     * 自定义时钟（默认是 WatchDogClock.SYSTEM）
+     */
+    public synchronized MemoryWatchDog setClock(WatchDogClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock is null.");
+        }
+        mClock = clock;
+        return this;
+    }
+
+    /**
+     * 开启hprof dump（默认是关闭的）
+     * @param dir - 保存目录，建议用App的私有目录
+     * @param maxFiles - 目录里边最多保留几个hprof，多了会删掉最旧的
+     * @param minIntervalMillis - 两次dump的最小间隔
+     */
+    public synchronized MemoryWatchDog openHeapDump(File dir, int maxFiles, long minIntervalMillis) {
+        if (dir == null) {
+            throw new IllegalArgumentException("dir is null.");
+        }
+        if (maxFiles <= 0) {
+            throw new IllegalArgumentException("maxFiles must > 0.");
+        }
+        mDumpDir = dir;
+        mMaxDumpFiles = maxFiles;
+        mDumpMinIntervalMillis = minIntervalMillis;
+        return this;
+    }
+
+    /**
+     * 是否打印内部日志（默认是关闭的）
+     */
+    public synchronized MemoryWatchDog isPrintLog(boolean isPrint) {
+        isPrintLog = isPrint;
+        return this;
+    }
+
+    /**
+     * 开始监听GC
+     */
+    public synchronized void start() {
+        if (isWorking) return;
+        isWorking = true;
+        GcWatchDog.addGcWatchDog(mGcWatcher);
+    }
+    //endregion
+
+    public synchronized void stop() {
+        if (!isWorking) return;
+        isWorking = false;
+        isOomPredicted = false;
+        GcWatchDog.removeGcWatchDog(mGcWatcher);
+    }
+
+    /**
+     * GC回调，执行在FinalizerDaemon线程
+     * 异常不能抛出去，否则GcWatchDog后面就收不到GC通知了
+     */
+    private void onGc() {
+        if (!isWorking) {
+            return;
+        }
+        try {
+            Runtime runtime = Runtime.getRuntime();
+            long retained = runtime.totalMemory() - runtime.freeMemory();
+            MemoryInfo info = sample(mClock.uptimeMillis(), retained, runtime.maxMemory(), getAllocatedBytes());
+            if (info != null) {
+                log(Log.WARN, "oom predicted: " + info);
+                scheduleHeapDump(info.getGcTime());
+                mListener.onOomPredicted(info);
+            }
+        } catch (Throwable e) {
+            log(Log.ERROR, "onGc fail. err=" + e.getMessage());
+        }
+    }
+
+    /**
+     * 记录一次GC采样，并且估算距离OOM的时间
+     * @param allocatedBytes - 累计分配的字节数，拿不到传-1
+     * @return 第一次低于阈值时返回内存信息，否则返回null
+     */
+    synchronized MemoryInfo sample(long now, long retainedBytes, long maxBytes, long allocatedBytes) {
+        final int capacity = mSampleTimes.length;
+        int index = mSampleCount % capacity;
+        mSampleTimes[index] = now;
+        mSampleRetained[index] = retainedBytes;
+        mSampleCount++;
+
+        long allocationRate = -1;
+        if (allocatedBytes >= 0 && mLastAllocatedBytes >= 0 && now > mLastGcTime) {
+            allocationRate = (allocatedBytes - mLastAllocatedBytes) * 1000 / (now - mLastGcTime);
+        }
+        mLastAllocatedBytes = allocatedBytes;
+        mLastGcTime = now;
+
+        final int size = Math.min(mSampleCount, capacity);
+        if (size < MIN_SAMPLE_COUNT) {
+            return null;
+        }
+
+        //最小二乘：x是相对于最早采样的时间，y是存活内存
+        long t0 = mSampleTimes[(mSampleCount - size) % capacity];
+        double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (int i = 0; i < size; i++) {
+            int k = (mSampleCount - size + i) % capacity;
+            double x = mSampleTimes[k] - t0;
+            double y = mSampleRetained[k];
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+        }
+        double denominator = size * sumXX - sumX * sumX;
+        if (denominator <= 0) {
+            return null;
+        }
+        double slope = (size * sumXY - sumX * sumY) / denominator; //字节/毫秒
+        if (slope <= 0) {
+            isOomPredicted = false;
+            return null;
+        }
+
+        long timeToOom = (long) (Math.max(0, maxBytes - retainedBytes) / slope);
+        log(Log.DEBUG, "gc retained=" + retainedBytes + " slope=" + slope + " timeToOom=" + timeToOom);
+        if (timeToOom >= oomThresholdMillis) {
+            isOomPredicted = false;
+            return null;
+        }
+        if (isOomPredicted) {
+            return null;
+        }
+        isOomPredicted = true;
+        return new MemoryInfo(now, retainedBytes, maxBytes, (long) (slope * 1000), allocationRate, timeToOom);
+    }
+
+    /**
+     * 累计分配的字节数，6.0以下拿不到返回-1
+     */
+    private long getAllocatedBytes() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+            } catch (Exception e) {
+                log(Log.ERROR, "get bytes-allocated fail. err=" + e.getMessage());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 限频，在单独的线程dump，不阻塞GC回调所在的线程
+     */
+    private void scheduleHeapDump(long now) {
+        final File dir;
+        final int maxFiles;
+        synchronized (this) {
+            if (mDumpDir == null || isDumping) {
+                return;
+            }
+            if (mLastDumpTime > 0 && now - mLastDumpTime < mDumpMinIntervalMillis) {
+                log(Log.DEBUG, "skip heap dump, interval=" + (now - mLastDumpTime));
+                return;
+            }
+            isDumping = true;
+            mLastDumpTime = now;
+            dir = mDumpDir;
+            maxFiles = mMaxDumpFiles;
+        }
+
+        new Thread(() -> {
+            File file = null;
+            try {
+                if (!dir.exists() && !dir.mkdirs()) {
+                    log(Log.ERROR, "mkdirs fail. dir=" + dir);
+                    return;
+                }
+                trimDumpFiles(dir, maxFiles - 1);
+                file = new File(dir, DUMP_FILE_PREFIX + System.currentTimeMillis() + DUMP_FILE_SUFFIX);
+                Debug.dumpHprofData(file.getAbsolutePath());
+                log(Log.INFO, "heap dumped: " + file);
+            } catch (Throwable e) {
+                log(Log.ERROR, "heap dump fail. err=" + e.getMessage());
+                if (file != null) file.delete();
+                file = null;
+            } finally {
+                synchronized (MemoryWatchDog.this) {
+                    isDumping = false;
+                }
+            }
+            if (file != null) {
+                mListener.onHeapDumped(file);
+            }
+        }, "MemoryWatchDog_Dump").start();
+    }
+
+    /**
+     * 目录里边只保留最新的keepCount个hprof（只管自己dump的文件，其他hprof不动）
+     */
+    private void trimDumpFiles(File dir, int keepCount) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(DUMP_FILE_PREFIX) && name.endsWith(DUMP_FILE_SUFFIX));
+        if (files == null || files.length <= keepCount) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length - keepCount; i++) {
+            if (!files[i].delete()) {
+                log(Log.ERROR, "delete fail. file=" + files[i]);
+            }
+        }
+    }
+
+    private void log(int logPriority, String msg) {
+        if (isPrintLog) {
+            Log.println(logPriority, TAG, msg);
+        }
+    }
+
+    public interface MemoryListener {
+        /**
+         * 估算距离OOM的时间低于阈值（只在第一次低于阈值时回调，回到阈值以上之后再次低于才会回调）
+         * 在FinalizerDaemon线程执行回调
+         */
+        void onOomPredicted(MemoryInfo info);
+
+        /**
+         * hprof dump完成（需要 openHeapDump）
+         * 在dump线程执行回调
+         */
+        default void onHeapDumped(File file) {}
+    }
+
+    public static final class MemoryInfo {
+        private final long mGcTime;
+        private final long mRetainedBytes;
+        private final long mMaxBytes;
+        private final long mRetainedGrowthRate;
+        private final long mAllocationRate;
+        private final long mTimeToOomMillis;
+
+        MemoryInfo(long gcTime, long retainedBytes, long maxBytes,
+                   long retainedGrowthRate, long allocationRate, long timeToOomMillis) {
+            mGcTime = gcTime;
+            mRetainedBytes = retainedBytes;
+            mMaxBytes = maxBytes;
+            mRetainedGrowthRate = retainedGrowthRate;
+            mAllocationRate = allocationRate;
+            mTimeToOomMillis = timeToOomMillis;
+        }
+
+        /**
+         * GC时间（uptimeMillis）
+         */
+        public long getGcTime() {
+            return mGcTime;
+        }
+
+        /**
+         * GC之后存活的内存
+         */
+        public long getRetainedBytes() {
+            return mRetainedBytes;
+        }
+
+        /**
+         * 最大可用内存（Runtime#maxMemory）
+         */
+        public long getMaxBytes() {
+            return mMaxBytes;
+        }
+
+        /**
+         * 存活内存的增长速度，字节/秒
+         */
+        public long getRetainedGrowthRate() {
+            return mRetainedGrowthRate;
+        }
+
+        /**
+         * 上一次GC到这次GC之间的分配速度，字节/秒，拿不到为-1
+         */
+        public long getAllocationRate() {
+            return mAllocationRate;
+        }
+
+        /**
+         * 估算距离OOM的时间
+         */
+        public long getTimeToOomMillis() {
+            return mTimeToOomMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "MemoryInfo{retained=" + mRetainedBytes
+                    + ", max=" + mMaxBytes
+                    + ", growth=" + mRetainedGrowthRate + "B/s"
+                    + ", allocation=" + mAllocationRate + "B/s"
+                    + ", timeToOom=" + mTimeToOomMillis + "ms"
+                    + "}";
+        }
+    }
+}
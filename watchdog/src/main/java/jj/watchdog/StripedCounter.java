@@ -0,0 +1,34 @@
+package jj.watchdog;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * author: JJLeong
+ * detail: 分段计数器 - 简化版的LongAdder（LongAdder要7.0才有）
+ *
+ * 按线程id把累加分散到不同的槽里边，多线程同时累加时不会抢同一个缓存行。
+ * 读取时把所有槽加起来，读取比较少所以无所谓。
+ */
+final class StripedCounter {
+    private static final int STRIPES = 8; //必须是2的幂
+    private static final int PADDING = 8; //每个槽占8个long（64字节），避免伪共享
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long value) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        mCells.getAndAdd(stripe * PADDING, value);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += mCells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
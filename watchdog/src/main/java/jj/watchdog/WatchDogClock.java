@@ -0,0 +1,49 @@
+package jj.watchdog;
+
+import android.os.SystemClock;
+
+/**
+ * author: JJLeong
+ * detail: 看门狗的时钟 & 调度抽象
+ *
+ * JJWatchDog、HandlerChecker 取时间和休眠都走这个接口，默认实现是 SystemClock#uptimeMillis + Object#wait。
+ * 单元测试里边 WatchDogLoop、Checker 用的是虚拟时钟，在JVM上用虚拟时间跑检测逻辑，不需要真的sleep。
+ * 注意：waitMillis 必须真的阻塞并释放lock，否则看门狗线程会空转。
+ */
+public interface WatchDogClock {
+
+    /**
+     * 默认实现：SystemClock#uptimeMillis + Object#wait
+     */
+    WatchDogClock SYSTEM = new WatchDogClock() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void waitMillis(Object lock, long millis) throws InterruptedException {
+            lock.wait(millis);
+        }
+    };
+
+    /**
+     * 当前时间（不包含深度睡眠的时间），单位毫秒
+     */
+    long uptimeMillis();
+
+    /**
+     * 纳秒精度的时间，只用来算耗时（比如Monitor获取锁的耗时），跟uptimeMillis没有对应关系
+     */
+    long nanoTime();
+
+    /**
+     * 在lock上等待millis毫秒，调用方必须持有lock
+     */
+    void waitMillis(Object lock, long millis) throws InterruptedException;
+}
@@ -0,0 +1,295 @@
+package jj.watchdog;
+
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * author: JJLeong
+ * detail: 带统计的ReentrantLock - 用来观察锁竞争的趋势
+ *
+ * 记录获取锁的耗时（直方图）、持有锁的耗时、竞争次数以及同时等待的最大线程数。
+ * 竞争次数在拿到锁之前累加，用的是StripedCounter；最大等待线程数用CAS更新；其他数据都是拿到锁之后才写，本身就是串行的。
+ * 重入不计入统计。Condition#await 期间锁是释放掉的，不算持有时间：await前结束一段持有，醒来重新拿到锁再开始计时。创建出来的锁会以弱引用的方式登记，通过 JJWatchDog#getSlowestLocks 查看。
+ *
+ * 用法：把 new ReentrantLock() 换成 new WatchDogLock("xxx") 即可。
+ * 统计数据没法序列化，所以不支持序列化（ReentrantLock本身是Serializable的）。
+ */
+public class WatchDogLock extends ReentrantLock {
+    private static final long serialVersionUID = 1L;
+
+    private static final ArrayList<WeakReference<WatchDogLock>> sLocks = new ArrayList<>();
+
+    private final String mName;
+    private final LatencyHistogram mWaitHistogram = new LatencyHistogram();
+    private final StripedCounter mContendedCount = new StripedCounter();
+    private final StripedCounter mTotalHoldNanos = new StripedCounter();
+    private volatile long mMaxHoldNanos;
+    private final AtomicInteger mMaxWaiters = new AtomicInteger();
+    private long mAcquireTime; //只有持有锁的线程会读写
+
+    public WatchDogLock(String name) {
+        this(name, false);
+    }
+
+    public WatchDogLock(String name, boolean fair) {
+        super(fair);
+        mName = name;
+        synchronized (sLocks) {
+            if (sLocks.size() % 64 == 63) { //顺便清理一下已经被回收的锁
+                Iterator<WeakReference<WatchDogLock>> it = sLocks.iterator();
+                while (it.hasNext()) {
+                    if (it.next().get() == null) it.remove();
+                }
+            }
+            sLocks.add(new WeakReference<>(this));
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public void lock() {
+        if (isHeldByCurrentThread()) {
+            super.lock();
+            return;
+        }
+        long start = beforeAcquire();
+        super.lock();
+        afterAcquire(start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (isHeldByCurrentThread()) {
+            super.lockInterruptibly();
+            return;
+        }
+        long start = beforeAcquire();
+        super.lockInterruptibly();
+        afterAcquire(start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (isHeldByCurrentThread()) {
+            return super.tryLock();
+        }
+        long start = System.nanoTime();
+        if (super.tryLock()) {
+            afterAcquire(start);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (isHeldByCurrentThread()) {
+            return super.tryLock(timeout, unit);
+        }
+        long start = beforeAcquire();
+        if (super.tryLock(timeout, unit)) {
+            afterAcquire(start);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void unlock() {
+        if (getHoldCount() == 1) {
+            recordHold();
+        }
+        super.unlock();
+    }
+
+    /**
+     * 返回的Condition在await前后会处理持有时间的统计
+     */
+    @Override
+    public Condition newCondition() {
+        return new HoldCondition(super.newCondition());
+    }
+
+    @Override
+    public boolean hasWaiters(Condition condition) {
+        return super.hasWaiters(unwrap(condition));
+    }
+
+    @Override
+    public int getWaitQueueLength(Condition condition) {
+        return super.getWaitQueueLength(unwrap(condition));
+    }
+
+    @Override
+    protected Collection<Thread> getWaitingThreads(Condition condition) {
+        return super.getWaitingThreads(unwrap(condition));
+    }
+
+    private static Condition unwrap(Condition condition) {
+        return condition instanceof HoldCondition ? ((HoldCondition) condition).mCondition : condition;
+    }
+
+    /**
+     * 结束一段持有，必须是持有锁的线程调用
+     */
+    private void recordHold() {
+        long hold = System.nanoTime() - mAcquireTime;
+        mTotalHoldNanos.add(hold);
+        if (hold > mMaxHoldNanos) {
+            mMaxHoldNanos = hold;
+        }
+    }
+
+    /**
+     * 锁已经被别的线程持有，就算一次竞争，同时记录一下等待的线程数
+     */
+    private long beforeAcquire() {
+        if (isLocked()) {
+            mContendedCount.increment();
+            int waiters = getQueueLength() + 1;
+            int max;
+            while (waiters > (max = mMaxWaiters.get()) && !mMaxWaiters.compareAndSet(max, waiters)) {
+                //被别的线程改了，重新比较
+            }
+        }
+        return System.nanoTime();
+    }
+
+    private void afterAcquire(long start) {
+        long now = System.nanoTime();
+        mAcquireTime = now;
+        mWaitHistogram.record(now - start);
+    }
+
+    public LockStats getStats() {
+        return mWaitHistogram.toLockStats(mName,
+                mContendedCount.sum(),
+                mTotalHoldNanos.sum() / 1000,
+                mMaxHoldNanos / 1000,
+                mMaxWaiters.get());
+    }
+
+    private void writeObject(ObjectOutputStream out) throws NotSerializableException {
+        throw new NotSerializableException(WatchDogLock.class.getName());
+    }
+
+    private void readObject(ObjectInputStream in) throws NotSerializableException {
+        throw new NotSerializableException(WatchDogLock.class.getName());
+    }
+
+    /**
+     * await会完全释放锁（不管重入了几次），醒来之后再拿回来，这期间别的线程会改掉mAcquireTime，
+     * 所以await前先结束这一段持有，醒来后重新开始计时
+     */
+    private final class HoldCondition implements Condition {
+        private final Condition mCondition;
+
+        HoldCondition(Condition condition) {
+            mCondition = condition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            beforeAwait();
+            try {
+                mCondition.await();
+            } finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            beforeAwait();
+            try {
+                mCondition.awaitUninterruptibly();
+            } finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            beforeAwait();
+            try {
+                return mCondition.awaitNanos(nanosTimeout);
+            } finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            beforeAwait();
+            try {
+                return mCondition.await(time, unit);
+            } finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            beforeAwait();
+            try {
+                return mCondition.awaitUntil(deadline);
+            } finally {
+                afterAwait();
+            }
+        }
+
+        @Override
+        public void signal() {
+            mCondition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            mCondition.signalAll();
+        }
+
+        private void beforeAwait() {
+            if (isHeldByCurrentThread()) { //没持有锁的话await会抛IllegalMonitorStateException
+                recordHold();
+            }
+        }
+
+        private void afterAwait() {
+            if (isHeldByCurrentThread()) {
+                mAcquireTime = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * 所有还存活的WatchDogLock的统计信息
+     */
+    static ArrayList<LockStats> getAllStats() {
+        ArrayList<LockStats> stats = new ArrayList<>();
+        synchronized (sLocks) {
+            Iterator<WeakReference<WatchDogLock>> it = sLocks.iterator();
+            while (it.hasNext()) {
+                WatchDogLock lock = it.next().get();
+                if (lock == null) {
+                    it.remove();
+                } else {
+                    stats.add(lock.getStats());
+                }
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,82 @@
+package jj.watchdog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * author: JJLeong
+ * detail: 看门狗的检查周期（不依赖Android）
+ *
+ * JJWatchDog#run 每一轮都调用 checkOnce：
+ *  1、对所有Checker发起检查；
+ *  2、通过WatchDogClock等待一个检查间隔；
+ *  3、有没完成的Checker，就找出逾期的。
+ * 模拟测试也是调用同一个方法，所以这里的改动会直接反映到模拟结果里边。
+ */
+final class WatchDogLoop {
+    //日志级别，同 android.util.Log
+    static final int DEBUG = 3;
+    static final int ERROR = 6;
+
+    interface Logger {
+        void log(int priority, String msg);
+    }
+
+    private final WatchDogClock mClock;
+    private final Logger mLogger;
+
+    WatchDogLoop(WatchDogClock clock, Logger logger) {
+        mClock = clock;
+        mLogger = logger;
+    }
+
+    /**
+     * 跑一轮检查，调用方必须持有lock（Checker完成检查时也是用这个lock）
+     * @return 逾期的Checker，全部完成了返回null
+     */
+    <T extends Checker> List<T> checkOnce(Object lock, List<T> checkers, long interval) {
+        long timeout = interval;
+        for (int i = 0; i < checkers.size(); i++) {
+            checkers.get(i).scheduleCheck();
+        }
+
+        long start = mClock.uptimeMillis();
+        while (timeout > 0) {
+            try {
+                mLogger.log(DEBUG, "wait " + timeout);
+                mClock.waitMillis(lock, timeout);
+            } catch (InterruptedException e) {
+                mLogger.log(ERROR, "wait fail, err=" + e.getMessage());
+            }
+            timeout = interval - (mClock.uptimeMillis() - start);
+        }
+
+        if (!evaluateCheckerCompletion(checkers)) {
+            return getBlockedCheckers(checkers);
+        }
+        return null;
+    }
+
+    /**
+     * 计算Checker们是否已经完成了，如果有任何一个没完成就返回
+     */
+    private static boolean evaluateCheckerCompletion(List<? extends Checker> checkers) {
+        for (int i = 0; i < checkers.size(); i++) {
+            if (!checkers.get(i).isCompletion()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T extends Checker> List<T> getBlockedCheckers(List<T> checkers) {
+        ArrayList<T> blocked = new ArrayList<>();
+        for (int i = 0; i < checkers.size(); i++) {
+            T checker = checkers.get(i);
+            if (checker.isOverdueLocked()) {
+                blocked.add(checker);
+            }
+        }
+        return blocked;
+    }
+}
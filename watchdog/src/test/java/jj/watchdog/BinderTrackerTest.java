@@ -0,0 +1,102 @@
+package jj.watchdog;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BinderTrackerTest {
+
+    @Test
+    public void nestedCallsEndInReverseOrder() {
+        BinderTracker.Recorder recorder = new BinderTracker.Recorder(Thread.currentThread(), 4);
+        //A里边处理传入的binder回调，又发起了B
+        recorder.start(100, 1);
+        recorder.start(120, 2);
+        recorder.end(150);
+        recorder.end(200);
+
+        BinderTracker.BinderCall[] calls = recorder.snapshot(0, 100000);
+        assertEquals(2, calls.length);
+        assertEquals(100, calls[0].getStartTime());
+        assertEquals(100, calls[0].getDuration());
+        assertFalse(calls[0].isPending());
+        assertEquals(120, calls[1].getStartTime());
+        assertEquals(30, calls[1].getDuration());
+        assertFalse(calls[1].isPending());
+    }
+
+    @Test
+    public void pendingCallLastsUntilNow() {
+        BinderTracker.Recorder recorder = new BinderTracker.Recorder(Thread.currentThread(), 4);
+        recorder.start(100, 1);
+
+        BinderTracker.BinderCall[] calls = recorder.snapshot(0, 400);
+        assertEquals(1, calls.length);
+        assertTrue(calls[0].isPending());
+        assertEquals(300, calls[0].getDuration());
+        //结束了多余的end不影响
+        recorder.end(500);
+        recorder.end(600);
+        assertEquals(400, recorder.snapshot(0, 1000)[0].getDuration());
+    }
+
+    @Test
+    public void snapshotOnlyKeepsCallsInWindowAfterWrap() {
+        BinderTracker.Recorder recorder = new BinderTracker.Recorder(Thread.currentThread(), 4);
+        for (int i = 0; i < 10; i++) {
+            recorder.start(i * 100, i);
+            recorder.end(i * 100 + 10);
+        }
+
+        //只剩最近4次：600、700、800、900
+        BinderTracker.BinderCall[] calls = recorder.snapshot(0, 1000);
+        assertEquals(4, calls.length);
+        assertEquals(6, calls[0].getTransactionCode());
+        assertEquals(9, calls[3].getTransactionCode());
+
+        //710结束的还算在里边，710之前结束的不算
+        calls = recorder.snapshot(710, 1000);
+        assertEquals(3, calls.length);
+        assertEquals(700, calls[0].getStartTime());
+        calls = recorder.snapshot(711, 1000);
+        assertEquals(2, calls.length);
+        assertEquals(800, calls[0].getStartTime());
+
+        assertEquals(0, recorder.snapshot(911, 1000).length);
+    }
+
+    @Test
+    public void overwrittenOpenCallIsIgnored() {
+        BinderTracker.Recorder recorder = new BinderTracker.Recorder(Thread.currentThread(), 2);
+        recorder.start(100, 1); //外层一直没返回
+        for (int i = 0; i < 3; i++) {
+            recorder.start(200 + i * 10, 2);
+            recorder.end(205 + i * 10);
+        }
+        //外层的槽位已经被覆盖，结束时不能改掉别的调用
+        recorder.end(300);
+
+        BinderTracker.BinderCall[] calls = recorder.snapshot(0, 1000);
+        assertEquals(2, calls.length);
+        assertEquals(5, calls[0].getDuration());
+        assertEquals(5, calls[1].getDuration());
+    }
+
+    @Test
+    public void throwableWithBinderCallsIsSerializable() throws Exception {
+        BinderTracker.Recorder recorder = new BinderTracker.Recorder(Thread.currentThread(), 4);
+        recorder.start(100, 1);
+        recorder.end(200);
+        JJWatchDog.WatchDogThrowable throwable = new JJWatchDog.WatchDogThrowable("blocked",
+                new StackTraceElement[0], recorder.snapshot(0, 300));
+
+        ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream());
+        out.writeObject(throwable);
+        out.close();
+    }
+}
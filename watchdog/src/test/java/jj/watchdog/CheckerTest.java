@@ -0,0 +1,47 @@
+package jj.watchdog;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CheckerTest {
+
+    @Test
+    public void monitorLatencyUsesClock() {
+        final VirtualClock clock = new VirtualClock();
+        //检查消息投递之后马上执行
+        CheckTarget target = new CheckTarget() {
+            @Override
+            public boolean isPolling() {
+                return false;
+            }
+
+            @Override
+            public void post(Runnable check, boolean isAtFront) {
+                check.run();
+            }
+
+            @Override
+            public void removeCallbacks(Runnable check) {
+            }
+        };
+        Checker checker = new Checker(target, "worker", 5000, true, clock, new Object(), (priority, msg) -> {});
+        checker.addMonitor("slow_lock", () -> clock.advanceNanos(3 * 1000 * 1000));
+        checker.addMonitor(() -> clock.advanceNanos(20 * 1000));
+
+        checker.scheduleCheck();
+        assertTrue(checker.isCompletion());
+
+        List<LockStats> stats = new ArrayList<>();
+        checker.collectMonitorStats(stats);
+        assertEquals(2, stats.size());
+        assertEquals("slow_lock", stats.get(0).getName());
+        assertEquals(1, stats.get(0).getAcquireCount());
+        assertEquals(3000, stats.get(0).getMaxWaitMicros());
+        assertEquals(20, stats.get(1).getMaxWaitMicros());
+    }
+}
@@ -0,0 +1,34 @@
+package jj.watchdog;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MemoryWatchDogTest {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void oomPredictedOnlyOnFirstCrossing() {
+        MemoryWatchDog watchDog = new MemoryWatchDog(info -> {})
+                .setWindowSize(3)
+                .setOomThreshold(60 * 1000);
+
+        //每秒涨10MB，离512MB不到1分钟
+        assertNull(watchDog.sample(0, 100 * MB, 512 * MB, -1));
+        assertNull(watchDog.sample(1000, 110 * MB, 512 * MB, -1));
+        MemoryWatchDog.MemoryInfo info = watchDog.sample(2000, 120 * MB, 512 * MB, -1);
+        assertNotNull(info);
+        assertEquals(10 * MB, info.getRetainedGrowthRate());
+        //一直低于阈值，不再回调
+        assertNull(watchDog.sample(3000, 130 * MB, 512 * MB, -1));
+
+        //内存降下来，重新布防
+        assertNull(watchDog.sample(4000, 60 * MB, 512 * MB, -1));
+        assertNull(watchDog.sample(5000, 50 * MB, 512 * MB, -1));
+        //再次低于阈值（60、50、100 => 每秒涨20MB）
+        assertNotNull(watchDog.sample(6000, 100 * MB, 512 * MB, -1));
+        assertNull(watchDog.sample(7000, 110 * MB, 512 * MB, -1));
+    }
+}
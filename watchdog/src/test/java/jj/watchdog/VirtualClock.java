@@ -0,0 +1,67 @@
+package jj.watchdog;
+
+/**
+ * author: JJLeong
+ * detail: 虚拟时钟 - 用于JVM上的模拟测试
+ *
+ * waitMillis不会真的休眠，而是直接把时间往前推，同时记录看门狗被唤醒的次数。
+ * 真机上Object#wait总是会晚一点点醒来，看门狗依赖这一点：检查间隔 == 超时时长（默认配置）时，
+ * 醒来那一刻 now > start + waitMax 才成立。所以这里用wakeupLatency模拟醒来的延迟，默认1ms。
+ * 内部用纳秒计时，测试里可以用advanceNanos模拟Monitor获取锁之类的耗时。
+ */
+class VirtualClock implements WatchDogClock {
+    static final long DEFAULT_WAKEUP_LATENCY = 1;
+
+    private final long mWakeupLatency;
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private long mNowNanos;
+    private int mWakeupCount;
+
+    VirtualClock() {
+        this(0, DEFAULT_WAKEUP_LATENCY);
+    }
+
+    VirtualClock(long startMillis, long wakeupLatencyMillis) {
+        if (wakeupLatencyMillis < 0) {
+            throw new IllegalArgumentException("wakeupLatencyMillis < 0.");
+        }
+        mNowNanos = startMillis * NANOS_PER_MILLI;
+        mWakeupLatency = wakeupLatencyMillis;
+    }
+
+    @Override
+    public synchronized long uptimeMillis() {
+        return mNowNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return mNowNanos;
+    }
+
+    /**
+     * 时间往前推nanos纳秒（不算唤醒）
+     */
+    synchronized void advanceNanos(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("nanos < 0.");
+        }
+        mNowNanos += nanos;
+    }
+
+    @Override
+    public synchronized void waitMillis(Object lock, long millis) {
+        if (millis > 0) {
+            mNowNanos += (millis + mWakeupLatency) * NANOS_PER_MILLI;
+        }
+        mWakeupCount++;
+    }
+
+    /**
+     * waitMillis被调用的次数（即看门狗的唤醒次数）
+     */
+    synchronized int getWakeupCount() {
+        return mWakeupCount;
+    }
+}
@@ -0,0 +1,46 @@
+package jj.watchdog;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WatchDogLockTest {
+
+    @Test
+    public void awaitIsNotCountedAsHold() throws Exception {
+        final WatchDogLock lock = new WatchDogLock("await");
+        final Condition condition = lock.newCondition();
+        final CountDownLatch waiting = new CountDownLatch(1);
+
+        Thread waiter = new Thread(() -> {
+            lock.lock();
+            try {
+                waiting.countDown();
+                condition.await(300, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+            } finally {
+                lock.unlock();
+            }
+        });
+        waiter.start();
+        waiting.await();
+        //waiter在await的时候，别的线程可以拿到锁
+        lock.lock();
+        assertTrue(lock.hasWaiters(condition));
+        assertEquals(1, lock.getWaitQueueLength(condition));
+        lock.unlock();
+        waiter.join();
+
+        LockStats stats = lock.getStats();
+        assertEquals(2, stats.getAcquireCount());
+        //300ms都在await，锁是释放的
+        assertTrue(stats.toString(), stats.getMaxHoldMicros() < 200 * 1000);
+        assertFalse(lock.isLocked());
+    }
+}
@@ -0,0 +1,342 @@
+package jj.watchdog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * author: JJLeong
+ * detail: 看门狗模拟器 - 在JVM上用虚拟时间跑检测逻辑
+ *
+ * 用FakeLooper（实现CheckTarget）代替Handler，每个FakeLooper按脚本执行一串msg（投递时间 + 执行时长）。
+ * 跑的是真实的 Checker + WatchDogLoop#checkOnce，跟JJWatchDog#run是同一套代码，
+ * 所以调度逻辑的改动会直接反映到检测延迟、误报率、唤醒次数上。
+ * 检查消息在VirtualClock醒来时统一执行（执行时间 <= 当前时间的都算已完成），跟真机上异步完成是等价的。
+ *
+ * 用法：
+ *  WatchDogSimulator sim = new WatchDogSimulator(5000);
+ *  sim.addLooper("worker", 5000, true).postSequence(0, 16, 16, 12000, 16);
+ *  WatchDogSimulator.Result result = sim.run(60 * 1000);
+ */
+class WatchDogSimulator {
+    private static final WatchDogLoop.Logger NO_LOG = (priority, msg) -> {};
+
+    private final long mCheckInterval;
+    private final long mWakeupLatency;
+    private final ArrayList<FakeLooper> mLoopers = new ArrayList<>();
+
+    /**
+     * @param checkIntervalMillis 检查间隔，对应 JJWatchDog#setCheckTimeInterval
+     */
+    WatchDogSimulator(long checkIntervalMillis) {
+        this(checkIntervalMillis, VirtualClock.DEFAULT_WAKEUP_LATENCY);
+    }
+
+    /**
+     * @param wakeupLatencyMillis 看门狗每次醒来的延迟，见VirtualClock
+     */
+    WatchDogSimulator(long checkIntervalMillis, long wakeupLatencyMillis) {
+        if (checkIntervalMillis <= 0) {
+            throw new IllegalArgumentException("checkIntervalMillis <= 0.");
+        }
+        mCheckInterval = checkIntervalMillis;
+        mWakeupLatency = wakeupLatencyMillis;
+    }
+
+    /**
+     * 添加一个模拟的Looper
+     * @param waitMaxMillis - 超时时长
+     * @param isPostAtFrontOfQueue - 是否高优先监控
+     */
+    FakeLooper addLooper(String name, long waitMaxMillis, boolean isPostAtFrontOfQueue) {
+        FakeLooper looper = new FakeLooper(name, waitMaxMillis, isPostAtFrontOfQueue);
+        mLoopers.add(looper);
+        return looper;
+    }
+
+    /**
+     * 用虚拟时间跑 durationMillis 这么长的时间
+     */
+    Result run(long durationMillis) {
+        final Object lock = new Object();
+        final VirtualClock clock = new VirtualClock(0, mWakeupLatency) {
+            @Override
+            public synchronized void waitMillis(Object l, long millis) {
+                super.waitMillis(l, millis);
+                long now = uptimeMillis();
+                for (int i = 0; i < mLoopers.size(); i++) {
+                    mLoopers.get(i).runPendingCheck(now);
+                }
+            }
+        };
+        WatchDogLoop loop = new WatchDogLoop(clock, NO_LOG);
+        ArrayList<Checker> checkers = new ArrayList<>(mLoopers.size());
+        for (FakeLooper looper : mLoopers) {
+            looper.attach(clock);
+            checkers.add(new Checker(looper, looper.mName, looper.mWaitMax, looper.isPostAtFront, clock, lock, NO_LOG));
+        }
+
+        Result result = new Result();
+        while (clock.uptimeMillis() < durationMillis) {
+            List<Checker> blocked;
+            synchronized (lock) {
+                blocked = loop.checkOnce(lock, checkers, mCheckInterval);
+            }
+            if (blocked == null) {
+                continue;
+            }
+
+            long now = clock.uptimeMillis();
+            for (Checker checker : blocked) {
+                result.blockedReports++;
+                FakeLooper looper = (FakeLooper) checker.getTarget();
+                int stall = looper.findStall(checker.getStartTime(), now);
+                if (stall < 0) {
+                    result.falsePositives++;
+                } else if (stall > looper.mLastDetected) {
+                    looper.mLastDetected = stall;
+                    result.addLatency(now - looper.mStarts[stall]);
+                }
+            }
+        }
+
+        //onHandleMessageOverdue：用CheckerState的msg耗时逻辑过一遍
+        for (FakeLooper looper : mLoopers) {
+            CheckerState state = new CheckerState(looper.mWaitMax);
+            for (int k = 0; k < looper.mCount; k++) {
+                if (looper.mEnds[k] > durationMillis) {
+                    break;
+                }
+                if (looper.isStall(k)) {
+                    result.stallCount++;
+                }
+                state.onDispatchStart(looper.mStarts[k], looper.mName);
+                if (state.onDispatchFinish(looper.mEnds[k]) != null) {
+                    result.overdueMessageReports++;
+                }
+            }
+        }
+        result.wakeupCount = clock.getWakeupCount();
+        return result;
+    }
+
+    /**
+     * 模拟的Looper：msg按投递时间排序，一条条执行
+     * 检查消息本身不耗时，不影响后面msg的执行时间
+     */
+    static final class FakeLooper implements CheckTarget {
+        private final String mName;
+        private final long mWaitMax;
+        private final boolean isPostAtFront;
+
+        private long[] mPosts = new long[16];
+        private long[] mStarts = new long[16];
+        private long[] mEnds = new long[16];
+        private int mCount;
+        private int mCursor; //第一个 end > now 的msg，now单调递增所以只会往后走
+
+        private VirtualClock mClock;
+        private Runnable mPendingCheck;
+        private long mPendingRunTime;
+        private int mLastDetected;
+
+        FakeLooper(String name, long waitMaxMillis, boolean isAtFront) {
+            mName = name;
+            mWaitMax = waitMaxMillis;
+            isPostAtFront = isAtFront;
+        }
+
+        /**
+         * 投递一条msg
+         * @param atMillis - 投递时间，必须不小于上一条msg的投递时间
+         * @param durationMillis - 执行时长
+         */
+        FakeLooper post(long atMillis, long durationMillis) {
+            if (durationMillis < 0) {
+                throw new IllegalArgumentException("durationMillis < 0.");
+            }
+            if (mCount > 0 && atMillis < mPosts[mCount - 1]) {
+                throw new IllegalArgumentException("msg must be posted in time order.");
+            }
+            if (mCount == mPosts.length) {
+                int capacity = mCount * 2;
+                mPosts = Arrays.copyOf(mPosts, capacity);
+                mStarts = Arrays.copyOf(mStarts, capacity);
+                mEnds = Arrays.copyOf(mEnds, capacity);
+            }
+            long start = mCount > 0 ? Math.max(atMillis, mEnds[mCount - 1]) : atMillis;
+            mPosts[mCount] = atMillis;
+            mStarts[mCount] = start;
+            mEnds[mCount] = start + durationMillis;
+            mCount++;
+            return this;
+        }
+
+        /**
+         * 在atMillis一次性投递多条msg（首尾相接执行）
+         */
+        FakeLooper postSequence(long atMillis, long... durations) {
+            for (long duration : durations) {
+                post(atMillis, duration);
+            }
+            return this;
+        }
+
+        void attach(VirtualClock clock) {
+            mClock = clock;
+            mCursor = 0;
+            mPendingCheck = null;
+            mLastDetected = -1;
+        }
+
+        private void moveCursor(long now) {
+            while (mCursor < mCount && mEnds[mCursor] <= now) {
+                mCursor++;
+            }
+        }
+
+        /**
+         * 对应 MessageQueue#isPolling：没有msg在执行，也没有到期的msg在排队
+         */
+        @Override
+        public boolean isPolling() {
+            long now = mClock.uptimeMillis();
+            moveCursor(now);
+            return mCursor == mCount || mPosts[mCursor] > now;
+        }
+
+        @Override
+        public void post(Runnable check, boolean isAtFront) {
+            long now = mClock.uptimeMillis();
+            mPendingCheck = check;
+            mPendingRunTime = runCheckAt(now, isAtFront);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable check) {
+            if (mPendingCheck == check) {
+                mPendingCheck = null;
+            }
+        }
+
+        /**
+         * 执行时间已经到了的检查消息
+         */
+        void runPendingCheck(long now) {
+            if (mPendingCheck != null && mPendingRunTime <= now) {
+                Runnable check = mPendingCheck;
+                mPendingCheck = null;
+                check.run();
+            }
+        }
+
+        /**
+         * 在now投递检查消息，返回检查消息被执行的时间
+         */
+        private long runCheckAt(long now, boolean isAtFront) {
+            moveCursor(now);
+            if (mCursor == mCount || mPosts[mCursor] > now) {
+                return now;
+            }
+            if (isAtFront) { //插到队头，等当前msg执行完
+                return mEnds[mCursor];
+            }
+            //排到队尾，等所有已投递的msg执行完
+            int low = mCursor, high = mCount; //二分找出最后一条 post <= now 的msg
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mPosts[mid] <= now) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return Math.max(now, mEnds[low - 1]);
+        }
+
+        boolean isStall(int index) {
+            return mEnds[index] - mStarts[index] >= mWaitMax;
+        }
+
+        /**
+         * 找出跟[from, to]有交集的卡顿msg（执行时长超过waitMax），没有返回-1
+         */
+        int findStall(long from, long to) {
+            for (int k = mCursor; k < mCount && mStarts[k] <= to; k++) {
+                if (mEnds[k] > from && isStall(k)) {
+                    return k;
+                }
+            }
+            for (int k = mCursor - 1; k >= 0 && mEnds[k] > from; k--) {
+                if (isStall(k)) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+    }
+
+    static final class Result {
+        /**
+         * 看门狗唤醒次数
+         */
+        int wakeupCount;
+        /**
+         * onThreadBlocked 的回调次数
+         */
+        int blockedReports;
+        /**
+         * 误报次数（报了阻塞，但是这段时间没有单条msg超过waitMax，一般是排队的msg太多导致）
+         */
+        int falsePositives;
+        /**
+         * 卡顿msg的数量（执行时长超过waitMax）
+         */
+        int stallCount;
+        /**
+         * 被onThreadBlocked检测到的卡顿msg数量
+         */
+        int detectedStalls;
+        /**
+         * onHandleMessageOverdue 的回调次数
+         */
+        int overdueMessageReports;
+        /**
+         * 检测延迟（卡顿msg开始执行 -> 第一次报警）
+         */
+        long maxLatency;
+        long totalLatency;
+
+        void addLatency(long latency) {
+            detectedStalls++;
+            totalLatency += latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+        }
+
+        long getAverageLatency() {
+            return detectedStalls > 0 ? totalLatency / detectedStalls : 0;
+        }
+
+        /**
+         * 误报率
+         */
+        float getFalsePositiveRate() {
+            return blockedReports > 0 ? (float) falsePositives / blockedReports : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{wakeupCount=" + wakeupCount
+                    + ", blockedReports=" + blockedReports
+                    + ", falsePositives=" + falsePositives
+                    + ", stallCount=" + stallCount
+                    + ", detectedStalls=" + detectedStalls
+                    + ", overdueMessageReports=" + overdueMessageReports
+                    + ", maxLatency=" + maxLatency
+                    + ", averageLatency=" + getAverageLatency()
+                    + "}";
+        }
+    }
+}
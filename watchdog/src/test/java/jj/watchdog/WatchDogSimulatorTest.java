@@ -0,0 +1,86 @@
+package jj.watchdog;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WatchDogSimulatorTest {
+
+    @Test
+    public void detectStallWithDefaultConfig() {
+        //检查间隔 == 超时时长，跟JJWatchDog的默认配置一样
+        WatchDogSimulator sim = new WatchDogSimulator(5000);
+        sim.addLooper("worker", 5000, true).postSequence(0, 16, 16, 12000, 16);
+
+        WatchDogSimulator.Result result = sim.run(60 * 1000);
+
+        assertEquals(1, result.stallCount);
+        assertEquals(1, result.detectedStalls);
+        assertEquals(0, result.falsePositives);
+        assertEquals(1, result.overdueMessageReports);
+        //卡顿从32ms开始，第三次醒来（~10002ms）才能发现
+        assertTrue(result.maxLatency <= 2 * 5000);
+    }
+
+    @Test
+    public void exactWakeupMissesStallAtBoundary() {
+        //醒来没有任何延迟时 now == start + waitMax，不满足 isOverdue，这种卡顿会漏掉
+        WatchDogSimulator sim = new WatchDogSimulator(5000, 0);
+        sim.addLooper("worker", 5000, true).postSequence(0, 16, 16, 12000, 16);
+
+        WatchDogSimulator.Result result = sim.run(60 * 1000);
+
+        assertEquals(1, result.stallCount);
+        assertEquals(0, result.detectedStalls);
+    }
+
+    @Test
+    public void queuedMessagesCauseFalsePositive() {
+        //600条10ms的msg排在一起，单条都不算卡顿，但是排队超过了waitMax
+        long[] durations = new long[600];
+        java.util.Arrays.fill(durations, 10);
+
+        WatchDogSimulator back = new WatchDogSimulator(5000);
+        back.addLooper("worker", 5000, false).postSequence(0, durations);
+        WatchDogSimulator.Result result = back.run(30 * 1000);
+        assertEquals(0, result.stallCount);
+        assertEquals(1, result.blockedReports);
+        assertEquals(1, result.falsePositives);
+        assertEquals(1f, result.getFalsePositiveRate(), 0f);
+
+        //高优先监控插到队头，不会误报
+        WatchDogSimulator front = new WatchDogSimulator(5000);
+        front.addLooper("worker", 5000, true).postSequence(0, durations);
+        assertEquals(0, front.run(30 * 1000).blockedReports);
+    }
+
+    @Test
+    public void wakeupCountDoesNotDependOnLooperCount() {
+        WatchDogSimulator.Result one = runManyLoopers(1);
+        WatchDogSimulator.Result many = runManyLoopers(2000);
+
+        //每轮等待 5000ms + 1ms 的醒来延迟，跟Looper的数量无关
+        assertEquals(12, one.wakeupCount);
+        assertEquals(one.wakeupCount, many.wakeupCount);
+
+        assertTrue(many.stallCount > one.stallCount);
+        assertEquals(many.stallCount, many.overdueMessageReports);
+        assertTrue(many.detectedStalls > 0);
+        assertTrue(many.maxLatency <= 2 * 5000 + 2);
+    }
+
+    /**
+     * looperCount个Looper跑同一套脚本：每500ms一条msg，每20秒有一条9秒的卡顿
+     */
+    private static WatchDogSimulator.Result runManyLoopers(int looperCount) {
+        WatchDogSimulator sim = new WatchDogSimulator(5000);
+        for (int i = 0; i < looperCount; i++) {
+            WatchDogSimulator.FakeLooper looper = sim.addLooper("looper" + i, 5000, i % 2 == 0);
+            for (long t = 0; t < 60 * 1000; t += 500) {
+                looper.post(t + i % 100, (t / 500) % 40 == 7 ? 9000 : 20);
+            }
+        }
+        return sim.run(60 * 1000);
+    }
+}